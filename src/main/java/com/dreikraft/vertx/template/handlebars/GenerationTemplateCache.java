@@ -0,0 +1,76 @@
+package com.dreikraft.vertx.template.handlebars;
+
+import com.github.jknack.handlebars.Parser;
+import com.github.jknack.handlebars.Template;
+import com.github.jknack.handlebars.cache.TemplateCache;
+import com.github.jknack.handlebars.io.TemplateSource;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A template cache private to a template generation. Templates are never revalidated or evicted, a generation
+ * renders its partials with the templates compiled for it.
+ */
+final class GenerationTemplateCache implements TemplateCache {
+
+    private final TemplateCache delegate;
+    private final ConcurrentMap<Object, Template> templates = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new GenerationTemplateCache.
+     *
+     * @param delegate the template cache compiling templates requested for the first time
+     */
+    GenerationTemplateCache(final TemplateCache delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Ignored, a template generation is immutable.
+     */
+    @Override
+    public void clear() {
+    }
+
+    /**
+     * Ignored, a template generation is immutable.
+     *
+     * @param source a template source
+     */
+    @Override
+    public void evict(final TemplateSource source) {
+    }
+
+    /**
+     * Gets the compiled template for the given source, compiling it on the first request.
+     *
+     * @param source a template source
+     * @param parser the parser to compile the source with
+     * @return the compiled template
+     * @throws IOException if the source can not be read
+     */
+    @Override
+    public Template get(final TemplateSource source, final Parser parser) throws IOException {
+        final Object key = key(source);
+        Template template = templates.get(key);
+        if (template == null) {
+            template = delegate.get(source, parser);
+            final Template cached = templates.putIfAbsent(key, template);
+            if (cached != null)
+                template = cached;
+        }
+        return template;
+    }
+
+    /**
+     * Captured sources are keyed by identity. Other sources, e.g. indented partials wrapping a captured source, are
+     * keyed by their content as they share filename and equality with the wrapped source.
+     */
+    private static Object key(final TemplateSource source) throws IOException {
+        if (source instanceof GenerationTemplateLoader.CapturedTemplateSource)
+            return source;
+        return source.filename() + '\n' + source.content();
+    }
+}
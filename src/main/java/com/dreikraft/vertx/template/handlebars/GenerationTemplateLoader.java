@@ -0,0 +1,136 @@
+package com.dreikraft.vertx.template.handlebars;
+
+import com.github.jknack.handlebars.io.TemplateLoader;
+import com.github.jknack.handlebars.io.TemplateSource;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A template loader serving the partial sources captured while a template generation was compiled. Partials are
+ * resolved by handlebars on every render, this loader pins them to the content they had at compile time.
+ */
+final class GenerationTemplateLoader implements TemplateLoader {
+
+    private static final String ERR_MSG_PARTIAL_NOT_CAPTURED = "partial %1$s is not part of the template generation";
+
+    private final TemplateLoader delegate;
+    private final ConcurrentMap<String, TemplateSource> sources = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new GenerationTemplateLoader.
+     *
+     * @param delegate the loader used to read partials while capturing
+     */
+    GenerationTemplateLoader(final TemplateLoader delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Reads the content of the given source into memory.
+     *
+     * @param source a template source
+     * @return a source with the captured content
+     * @throws IOException if the source can not be read
+     */
+    static TemplateSource capture(final TemplateSource source) throws IOException {
+        return new CapturedTemplateSource(source.filename(), source.content(), source.lastModified());
+    }
+
+    /**
+     * Reads the partial with the given location from the delegate loader and pins it to this loader.
+     *
+     * @param location the partial location as referenced in the template
+     * @return the captured partial source
+     * @throws IOException if the partial can not be found or read
+     */
+    TemplateSource capture(final String location) throws IOException {
+        final TemplateSource source = capture(delegate.sourceAt(location));
+        sources.put(location, source);
+        return source;
+    }
+
+    /**
+     * Checks whether the partial with the given location has already been captured.
+     *
+     * @param location the partial location as referenced in the template
+     * @return true, if the partial is captured
+     */
+    boolean contains(final String location) {
+        return sources.containsKey(location);
+    }
+
+    /**
+     * Gets a captured partial source. Never reads from the delegate loader.
+     *
+     * @param location the partial location as referenced in the template
+     * @return the captured partial source
+     * @throws IOException if the partial was not captured
+     */
+    @Override
+    public TemplateSource sourceAt(final String location) throws IOException {
+        final TemplateSource source = sources.get(location);
+        if (source == null)
+            throw new FileNotFoundException(String.format(ERR_MSG_PARTIAL_NOT_CAPTURED, location));
+        return source;
+    }
+
+    @Override
+    public String resolve(final String location) {
+        return delegate.resolve(location);
+    }
+
+    @Override
+    public String getPrefix() {
+        return delegate.getPrefix();
+    }
+
+    @Override
+    public String getSuffix() {
+        return delegate.getSuffix();
+    }
+
+    /**
+     * An in-memory template source. Equality is identity, so a captured source is a cache key of its own.
+     */
+    static final class CapturedTemplateSource implements TemplateSource {
+        private final String filename;
+        private final String content;
+        private final long lastModified;
+
+        private CapturedTemplateSource(final String filename, final String content, final long lastModified) {
+            this.filename = filename;
+            this.content = content;
+            this.lastModified = lastModified;
+        }
+
+        @Override
+        public String content() {
+            return content;
+        }
+
+        @Override
+        public Reader reader() {
+            return new StringReader(content);
+        }
+
+        @Override
+        public String filename() {
+            return filename;
+        }
+
+        @Override
+        public long lastModified() {
+            return lastModified;
+        }
+
+        @Override
+        public String toString() {
+            return filename;
+        }
+    }
+}
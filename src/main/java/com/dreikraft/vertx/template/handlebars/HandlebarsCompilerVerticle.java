@@ -2,16 +2,24 @@ package com.dreikraft.vertx.template.handlebars;
 
 import com.github.jknack.handlebars.Handlebars;
 import com.github.jknack.handlebars.Template;
+import com.github.jknack.handlebars.cache.NullTemplateCache;
+import com.github.jknack.handlebars.io.ClassPathTemplateLoader;
 import com.github.jknack.handlebars.io.TemplateSource;
 import com.github.jknack.handlebars.io.URLTemplateSource;
 import org.vertx.java.busmods.BusModBase;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayDeque;
 import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
 
 /**
@@ -29,16 +37,26 @@ public class HandlebarsCompilerVerticle extends BusModBase {
      */
     public static final String ADDRESS_COMPILE_FILE = ADDRESS_BASE + "/compile";
 
+    /**
+     * The event bus address to compile a template generation.
+     */
+    public static final String ADDRESS_COMPILE_GENERATION = ADDRESS_BASE + "/compileGeneration";
+
     /**
      * The error code returned by this verticle.
      */
     public static final int ERR_CODE_BASE = 500;
 
     private static final String ERR_MSG_TMPL_COMPILE_FAILED = "failed to compile template: %1$s";
+    private static final String ERR_MSG_TMPL_NOT_FOUND = "template not found: %1$s";
+    private static final String ERR_MSG_GENERATION_EMPTY = "no template locations given: %1$s";
     private static final String ERR_MSG_UNEXPECTED = "unexpected exception %1$s while processing message %2$s";
+    private static final String DEFAULT_START_DELIMITER = "{{";
+    private static final String DEFAULT_END_DELIMITER = "}}";
 
     private Handlebars handlebars;
     private ConcurrentMap<String, SharedTemplate> templateCache;
+    private ConcurrentMap<String, TemplateGeneration> templateGenerations;
 
     /**
      * Initialize the handlebar template compilers on the eventbus. Following handlers are registered:
@@ -47,9 +65,14 @@ public class HandlebarsCompilerVerticle extends BusModBase {
      * <li>com.dreikraft.vertx.template.handlebars.HandlebarsCompileVerticle/compile
      * <p>compiles a template with the given location on the classpath: "templates/hello.hbs"</p>
      * </li>
+     * <li>com.dreikraft.vertx.template.handlebars.HandlebarsCompileVerticle/compileGeneration
+     * <p>compiles a set of templates and activates it as new template generation:
+     * {"templateLocations": ["templates/hello.hbs", ...]}</p>
+     * </li>
      * </ul>
      *
-     * Compiled templates are stored in a shared template cache.
+     * Compiled templates are stored in a shared template cache. Template generations are stored in the shared map
+     * "handlebar.templates.generations".
      */
     @Override
     public void start() {
@@ -57,12 +80,91 @@ public class HandlebarsCompilerVerticle extends BusModBase {
         super.start();
 
         // initilialize members
-        handlebars = new Handlebars();
+        handlebars = ProfilingHelper.register(new Handlebars());
+        handlebars.with(new ProfilingTemplateCache(handlebars.getCache()));
         templateCache = vertx.sharedData().getMap(HandlebarsRendererVerticle.HANDLEBAR_TEMPLATES_CACHE);
+        templateGenerations = vertx.sharedData().getMap(HandlebarsRendererVerticle.HANDLEBAR_TEMPLATES_GENERATIONS);
 
         // register the compile handler
         logger.info(String.format("registering handler %1$s", ADDRESS_COMPILE_FILE));
         eb.registerHandler(ADDRESS_COMPILE_FILE, new CompileFileMessageHandler());
+
+        // register the compile generation handler
+        logger.info(String.format("registering handler %1$s", ADDRESS_COMPILE_GENERATION));
+        eb.registerHandler(ADDRESS_COMPILE_GENERATION, new CompileGenerationMessageHandler());
+    }
+
+    /**
+     * Gets the source of the template with the given location on the classpath.
+     *
+     * @param templateLocation the location of the template in the classpath
+     * @return the template source
+     * @throws IOException if the template can not be found
+     */
+    private TemplateSource templateSource(final String templateLocation) throws IOException {
+        final URL templateURL = Thread.currentThread().getContextClassLoader().getResource(templateLocation);
+        if (templateURL == null)
+            throw new FileNotFoundException(String.format(ERR_MSG_TMPL_NOT_FOUND, templateLocation));
+        return new URLTemplateSource(templateLocation, templateURL);
+    }
+
+    /**
+     * Compiles the given template source.
+     *
+     * @param compiler       the handlebars instance used for compilation
+     * @param templateSource the template source
+     * @return the compiled template
+     * @throws IOException if the template can not be read
+     */
+    private SharedTemplate compile(final Handlebars compiler, final TemplateSource templateSource)
+            throws IOException {
+        final Template template = compiler.compile(templateSource);
+        return new SharedTemplate(template, new Date(templateSource.lastModified()));
+    }
+
+    /**
+     * Finds the partials referenced by a template, e.g. "templates/partial" for <code>{{> templates/partial}}</code>.
+     * The tags are scanned like the handlebars parser does: comments (<code>{{! ...}}</code>,
+     * <code>{{!-- ... --}}</code>) are skipped and delimiter changes (<code>{{=&lt;% %&gt;=}}</code>) are followed.
+     * Partials the scanner does not find are missing in the generation and fail at render time.
+     *
+     * @param content the template content
+     * @return the partial locations
+     */
+    private static Deque<String> partials(final String content) {
+        final Deque<String> partials = new ArrayDeque<>();
+        String startDelimiter = DEFAULT_START_DELIMITER;
+        String endDelimiter = DEFAULT_END_DELIMITER;
+        int index = content.indexOf(startDelimiter);
+        while (index >= 0) {
+            final int tagStart = index + startDelimiter.length();
+            final int tagEnd;
+            if (content.startsWith("!--", tagStart)) {
+                tagEnd = content.indexOf("--" + endDelimiter, tagStart);
+                if (tagEnd < 0)
+                    break;
+                index = tagEnd + 2 + endDelimiter.length();
+            } else {
+                tagEnd = content.indexOf(endDelimiter, tagStart);
+                if (tagEnd < 0)
+                    break;
+                index = tagEnd + endDelimiter.length();
+                final String tag = content.substring(tagStart, tagEnd).trim();
+                if (tag.startsWith(">")) {
+                    final String partial = tag.substring(1).trim().split("\\s+")[0];
+                    if (!partial.isEmpty())
+                        partials.add(partial);
+                } else if (tag.length() > 1 && tag.startsWith("=") && tag.endsWith("=")) {
+                    final String[] delimiters = tag.substring(1, tag.length() - 1).trim().split("\\s+");
+                    if (delimiters.length == 2) {
+                        startDelimiter = delimiters[0];
+                        endDelimiter = delimiters[1];
+                    }
+                }
+            }
+            index = content.indexOf(startDelimiter, index);
+        }
+        return partials;
     }
 
     /**
@@ -84,12 +186,7 @@ public class HandlebarsCompilerVerticle extends BusModBase {
             try {
                 final String templateLocation = compileMsg.body().getString(
                         HandlebarsRendererVerticle.FIELD_TEMPLATE_LOCATION);
-                final URL templateURL = Thread.currentThread().getContextClassLoader().getResource(templateLocation);
-                final TemplateSource templateSource = new URLTemplateSource(templateLocation, templateURL);
-                final Template template = handlebars.compile(new URLTemplateSource(templateLocation, templateURL));
-                final SharedTemplate sharedTemplate = new SharedTemplate(template,
-                        new Date(templateSource.lastModified()));
-                templateCache.put(templateLocation, sharedTemplate);
+                templateCache.put(templateLocation, compile(handlebars, templateSource(templateLocation)));
                 sendOK(compileMsg, new JsonObject().putString("message", String.format("successfully compiled %1$s",
                         templateLocation)));
             } catch (IOException ex) {
@@ -103,4 +200,96 @@ public class HandlebarsCompilerVerticle extends BusModBase {
             }
         }
     }
+
+    /**
+     * Compiles a set of templates into a new template generation and activates it.
+     */
+    private class CompileGenerationMessageHandler implements Handler<Message<JsonObject>> {
+
+        /**
+         * Handles compile generation messages. All templates are compiled with a handlebars instance private to
+         * the generation. Every partial reachable from the templates is captured and compiled as well, renders of
+         * the generation never load or compile partials from the classpath again. Only if every template and
+         * partial compiles, the generation replaces the active generation in the shared map
+         * "handlebar.templates.generations" with a single swap. On failure the active generation stays untouched.
+         *
+         * @param compileMsg a JSON message of the form "{"templateLocations": ["templates/template.hbs", ...]}"
+         */
+        @Override
+        public void handle(final Message<JsonObject> compileMsg) {
+            if (logger.isDebugEnabled())
+                logger.debug(String.format("address %1$s received message: %2$s", compileMsg.address(),
+                        compileMsg.body()));
+            try {
+                final JsonArray templateLocations = compileMsg.body().getArray(
+                        HandlebarsRendererVerticle.FIELD_TEMPLATE_LOCATIONS);
+                if (templateLocations == null || templateLocations.size() == 0) {
+                    final String msg = String.format(ERR_MSG_GENERATION_EMPTY, compileMsg.body());
+                    logger.error(msg);
+                    compileMsg.fail(ERR_CODE_BASE, msg);
+                    return;
+                }
+
+                // compile and check the whole set before touching the active generation
+                final GenerationTemplateLoader loader = new GenerationTemplateLoader(new ClassPathTemplateLoader());
+                final Handlebars compiler = ProfilingHelper.register(new Handlebars(loader));
+                compiler.with(new GenerationTemplateCache(new ProfilingTemplateCache(NullTemplateCache.INSTANCE)));
+                final Map<String, SharedTemplate> templates = new HashMap<>();
+                final Deque<String> pendingPartials = new ArrayDeque<>();
+                for (final Object templateLocation : templateLocations) {
+                    final TemplateSource templateSource = GenerationTemplateLoader.capture(
+                            templateSource((String) templateLocation));
+                    templates.put((String) templateLocation, compile(compiler, templateSource));
+                    pendingPartials.addAll(partials(templateSource.content()));
+                }
+                while (!pendingPartials.isEmpty()) {
+                    final String partialLocation = pendingPartials.pop();
+                    if (!loader.contains(partialLocation)) {
+                        final TemplateSource partialSource = loader.capture(partialLocation);
+                        compiler.compile(partialSource);
+                        pendingPartials.addAll(partials(partialSource.content()));
+                    }
+                }
+
+                final TemplateGeneration generation = activate(new TemplateGeneration(0, templates, new Date()));
+                logger.info(String.format("activated template generation %1$d with %2$d templates",
+                        generation.getId(), generation.size()));
+                sendOK(compileMsg, new JsonObject()
+                        .putNumber(HandlebarsRendererVerticle.FIELD_GENERATION, generation.getId())
+                        .putString("message", String.format("successfully compiled generation %1$d",
+                                generation.getId())));
+            } catch (IOException ex) {
+                final String msg = String.format(ERR_MSG_TMPL_COMPILE_FAILED, compileMsg.body());
+                logger.error(msg, ex);
+                compileMsg.fail(ERR_CODE_BASE, msg);
+            } catch (RuntimeException ex) {
+                final String msg = String.format(ERR_MSG_UNEXPECTED, ex.getMessage(), compileMsg.body());
+                logger.error(msg, ex);
+                compileMsg.fail(ERR_CODE_BASE, msg);
+            }
+        }
+
+        /**
+         * Replaces the active generation. Concurrent activations are ordered by retrying the swap, each successful
+         * swap gets the next generation number.
+         *
+         * @param compiled the compiled generation
+         * @return the activated generation
+         */
+        private TemplateGeneration activate(final TemplateGeneration compiled) {
+            while (true) {
+                final TemplateGeneration active = templateGenerations.get(
+                        HandlebarsRendererVerticle.ACTIVE_GENERATION);
+                if (active == null) {
+                    final TemplateGeneration next = compiled.withId(1);
+                    if (templateGenerations.putIfAbsent(HandlebarsRendererVerticle.ACTIVE_GENERATION, next) == null)
+                        return next;
+                } else {
+                    final TemplateGeneration next = compiled.withId(active.getId() + 1);
+                    if (templateGenerations.replace(HandlebarsRendererVerticle.ACTIVE_GENERATION, active, next))
+                        return next;
+                }
+            }
+        }
+    }
 }
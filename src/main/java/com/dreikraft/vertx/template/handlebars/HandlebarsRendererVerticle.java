@@ -10,6 +10,7 @@ import org.vertx.java.core.json.JsonObject;
 
 import java.io.IOException;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Applies data to Handlebar Templates. Will invoke template compilation, if the template is not already compiled. The
@@ -29,6 +30,10 @@ public class HandlebarsRendererVerticle extends BusModBase {
      * The event bus address to flush the shared template cache.
      */
     public static final String ADDRESS_FLUSH = ADDRESS_BASE + "/flush";
+    /**
+     * The event bus address sampled render profiles are published to.
+     */
+    public static final String ADDRESS_PROFILE = ADDRESS_BASE + "/profile";
     /**
      * JSON property name "templateLocation" (String).
      */
@@ -41,18 +46,44 @@ public class HandlebarsRendererVerticle extends BusModBase {
      * JSON property name "renderResult" (String).
      */
     public static final String FIELD_RENDER_RESULT = "renderResult";
+    /**
+     * JSON property name "templateLocations" (JsonArray of Strings).
+     */
+    public static final String FIELD_TEMPLATE_LOCATIONS = "templateLocations";
+    /**
+     * JSON property name "generation" (Number).
+     */
+    public static final String FIELD_GENERATION = "generation";
+    /**
+     * JSON property name "profile" (true/false in the render request, JsonObject in the reply).
+     */
+    public static final String FIELD_PROFILE = "profile";
     /**
      * JSON property name "autoUpdate" (true/false)
      */
     public static final String CONFIG_AUTO_UPDATE = "autoUpdate";
+    /**
+     * JSON property name "profileSampleRate" (0.0 - 1.0)
+     */
+    public static final String CONFIG_PROFILE_SAMPLE_RATE = "profileSampleRate";
     /**
      * The name of the shared cache.
      */
     public static final String HANDLEBAR_TEMPLATES_CACHE = "handlebar.templates.cache";
+    /**
+     * The name of the shared map holding the active template generation.
+     */
+    public static final String HANDLEBAR_TEMPLATES_GENERATIONS = "handlebar.templates.generations";
+    /**
+     * The key of the active template generation in the shared generations map.
+     */
+    public static final String ACTIVE_GENERATION = "active";
 
     private static final String ERR_MSG_RENDER_FAILED = "failed to render template %1$s with data %2$s";
     private static final String ERR_MSG_TEMPLATE_NOT_FOUND = "template not found %1$s";
     private ConcurrentMap<String, SharedTemplate> templateCache;
+    private ConcurrentMap<String, TemplateGeneration> templateGenerations;
+    private double profileSampleRate;
 
     /**
      * Initialize the handlebar template handlers on the eventbus. Following handlers are registered:
@@ -66,8 +97,13 @@ public class HandlebarsRendererVerticle extends BusModBase {
      * </li>
      * </ul>
      * <p>
+     * Renders requested with <code>"profile": true</code> return their execution profile in the reply. A fraction of
+     * all renders configured by "profileSampleRate" is profiled too and published to
+     * <code>com.dreikraft.vertx.template.handlebars.HandlebarsRendererVerticle/profile</code>.
+     * <p>
      * Compiled templates are stored in a shared template cache. The verticle will check, if the template in the cache
-     * is up-to-date based on its last-modified date.
+     * is up-to-date based on its last-modified date. Templates contained in the active template generation are
+     * rendered from that generation and are not checked for updates.
      */
     @Override
     public void start() {
@@ -77,6 +113,9 @@ public class HandlebarsRendererVerticle extends BusModBase {
 
         // initilialize members
         templateCache = vertx.sharedData().getMap(HANDLEBAR_TEMPLATES_CACHE);
+        templateGenerations = vertx.sharedData().getMap(HANDLEBAR_TEMPLATES_GENERATIONS);
+        final Number sampleRate = config.getNumber(CONFIG_PROFILE_SAMPLE_RATE);
+        profileSampleRate = sampleRate != null ? sampleRate.doubleValue() : 0;
 
         // register event handlers
         logger.info(String.format("registering handler %1$s", ADDRESS_RENDER_FILE));
@@ -94,7 +133,8 @@ public class HandlebarsRendererVerticle extends BusModBase {
 
         /**
          * Takes a templateLocation and renders the applied JSON data into a string. The result is returned as reply
-         * string.
+         * string. The active template generation is read once, so the render completes on that generation even if a
+         * new generation gets activated meanwhile.
          *
          * @param renderMsg a JSON message of the form "{"templateLocation": "templates/template.hbs", "data": "{...}"}"
          */
@@ -107,6 +147,14 @@ public class HandlebarsRendererVerticle extends BusModBase {
                             renderMsg.body().encodePrettily()));
                 final JsonObject renderCtx = renderMsg.body();
                 templateLocation = renderCtx.getString(FIELD_TEMPLATE_LOCATION);
+                final TemplateGeneration generation = templateGenerations.get(ACTIVE_GENERATION);
+                final SharedTemplate generationTemplate = generation != null ?
+                        generation.getTemplate(templateLocation) : null;
+                if (generationTemplate != null) {
+                    sendOK(renderMsg, render(generationTemplate, renderMsg).putNumber(FIELD_GENERATION,
+                            generation.getId()));
+                    return;
+                }
                 final SharedTemplate sharedTemplate = templateCache.get(templateLocation);
                 if (getOptionalBooleanConfig(CONFIG_AUTO_UPDATE, true)) {
                     vertx.fileSystem().props(templateLocation, new TemplateUpToDateHandler(sharedTemplate, renderMsg,
@@ -122,7 +170,8 @@ public class HandlebarsRendererVerticle extends BusModBase {
         }
 
         /**
-         * Renders the template with the given Json data into a String
+         * Renders the template with the given Json data into a String. Profiles the render, if requested by the
+         * message or selected by sampling.
          *
          * @param sharedTemplate a shared template instance
          * @param renderMsg      a Json Message with the "data" JsonObject and the "templateLocation" as string
@@ -130,7 +179,37 @@ public class HandlebarsRendererVerticle extends BusModBase {
         private JsonObject render(final SharedTemplate sharedTemplate, final Message<JsonObject> renderMsg)
                 throws IOException {
             final JsonObject data = renderMsg.body().getObject(FIELD_DATA);
-            return new JsonObject().putString(FIELD_RENDER_RESULT, sharedTemplate.getTemplate().apply(data.toMap()));
+            final boolean profileRequested = renderMsg.body().getBoolean(FIELD_PROFILE, false);
+            if (!profileRequested && !sampled()) {
+                return new JsonObject().putString(FIELD_RENDER_RESULT,
+                        sharedTemplate.getTemplate().apply(data.toMap()));
+            }
+
+            final String renderResult;
+            final RenderProfile profile = RenderProfile.start();
+            try {
+                renderResult = sharedTemplate.getTemplate().apply(data.toMap());
+            } finally {
+                profile.stop();
+            }
+            final JsonObject profileResult = profile.toJson(renderResult).putString(FIELD_TEMPLATE_LOCATION,
+                    renderMsg.body().getString(FIELD_TEMPLATE_LOCATION));
+            final JsonObject result = new JsonObject().putString(FIELD_RENDER_RESULT, renderResult);
+            if (profileRequested) {
+                result.putObject(FIELD_PROFILE, profileResult);
+            } else {
+                eb.publish(ADDRESS_PROFILE, profileResult);
+            }
+            return result;
+        }
+
+        /**
+         * Decides whether an unrequested render gets profiled.
+         *
+         * @return true, if the render was selected by the configured sample rate
+         */
+        private boolean sampled() {
+            return profileSampleRate > 0 && ThreadLocalRandom.current().nextDouble() < profileSampleRate;
         }
 
         /**
@@ -0,0 +1,72 @@
+package com.dreikraft.vertx.template.handlebars;
+
+import com.github.jknack.handlebars.Handlebars;
+import com.github.jknack.handlebars.Helper;
+import com.github.jknack.handlebars.Options;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Wraps a handlebars helper and records its invocations into the {@link RenderProfile} active on the rendering
+ * thread. Without an active profile the wrapped helper is called directly.
+ */
+final class ProfilingHelper implements Helper<Object> {
+
+    private static final String EACH = "each";
+
+    private final String name;
+    private final Helper<Object> delegate;
+
+    private ProfilingHelper(final String name, final Helper<Object> delegate) {
+        this.name = name;
+        this.delegate = delegate;
+    }
+
+    /**
+     * Replaces every helper registered with the given handlebars instance with a profiling helper. Helpers have to
+     * be registered before, helpers registered later are not profiled.
+     *
+     * @param handlebars a handlebars instance
+     * @return the handlebars instance
+     */
+    @SuppressWarnings("unchecked")
+    static Handlebars register(final Handlebars handlebars) {
+        for (final Map.Entry<String, Helper<?>> helper : new ArrayList<>(handlebars.helpers())) {
+            if (!(helper.getValue() instanceof ProfilingHelper))
+                handlebars.registerHelper(helper.getKey(),
+                        new ProfilingHelper(helper.getKey(), (Helper<Object>) helper.getValue()));
+        }
+        return handlebars;
+    }
+
+    /**
+     * Applies the wrapped helper and records time, output and iterations if profiling is active.
+     *
+     * @param context the helper context
+     * @param options the helper options
+     * @return the helper output
+     * @throws IOException if the wrapped helper fails
+     */
+    @Override
+    public CharSequence apply(final Object context, final Options options) throws IOException {
+        final RenderProfile profile = RenderProfile.current();
+        if (profile == null)
+            return delegate.apply(context, options);
+        final long start = System.nanoTime();
+        final CharSequence output = delegate.apply(context, options);
+        profile.recordHelper(name, options, System.nanoTime() - start, output,
+                EACH.equals(name) ? iterations(context) : 0);
+        return output;
+    }
+
+    private static long iterations(final Object context) {
+        if (context instanceof Collection)
+            return ((Collection<?>) context).size();
+        if (context instanceof Map)
+            return ((Map<?, ?>) context).size();
+        return 0;
+    }
+}
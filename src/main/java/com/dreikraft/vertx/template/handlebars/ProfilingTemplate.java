@@ -0,0 +1,168 @@
+package com.dreikraft.vertx.template.handlebars;
+
+import com.github.jknack.handlebars.Context;
+import com.github.jknack.handlebars.TagType;
+import com.github.jknack.handlebars.Template;
+import com.github.jknack.handlebars.TypeSafeTemplate;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.List;
+
+/**
+ * Wraps a compiled template or partial and records its executions into the {@link RenderProfile} active on the
+ * rendering thread. Without an active profile the wrapped template is applied directly.
+ */
+final class ProfilingTemplate implements Template {
+
+    private final String filename;
+    private final Template delegate;
+
+    /**
+     * Creates a new ProfilingTemplate.
+     *
+     * @param filename the template filename used in the profile
+     * @param delegate the compiled template
+     */
+    ProfilingTemplate(final String filename, final Template delegate) {
+        this.filename = filename;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void apply(final Object context, final Writer writer) throws IOException {
+        final RenderProfile profile = RenderProfile.current();
+        if (profile == null) {
+            delegate.apply(context, writer);
+            return;
+        }
+        final CountingWriter countingWriter = new CountingWriter(writer);
+        profile.enterTemplate(filename);
+        final long start = System.nanoTime();
+        try {
+            delegate.apply(context, countingWriter);
+        } finally {
+            profile.exitTemplate(System.nanoTime() - start, countingWriter.bytes);
+        }
+    }
+
+    @Override
+    public String apply(final Object context) throws IOException {
+        final RenderProfile profile = RenderProfile.current();
+        if (profile == null)
+            return delegate.apply(context);
+        profile.enterTemplate(filename);
+        final long start = System.nanoTime();
+        String output = null;
+        try {
+            output = delegate.apply(context);
+            return output;
+        } finally {
+            profile.exitTemplate(System.nanoTime() - start, RenderProfile.utf8Length(output));
+        }
+    }
+
+    @Override
+    public void apply(final Context context, final Writer writer) throws IOException {
+        final RenderProfile profile = RenderProfile.current();
+        if (profile == null) {
+            delegate.apply(context, writer);
+            return;
+        }
+        final CountingWriter countingWriter = new CountingWriter(writer);
+        profile.enterTemplate(filename);
+        final long start = System.nanoTime();
+        try {
+            delegate.apply(context, countingWriter);
+        } finally {
+            profile.exitTemplate(System.nanoTime() - start, countingWriter.bytes);
+        }
+    }
+
+    @Override
+    public String apply(final Context context) throws IOException {
+        final RenderProfile profile = RenderProfile.current();
+        if (profile == null)
+            return delegate.apply(context);
+        profile.enterTemplate(filename);
+        final long start = System.nanoTime();
+        String output = null;
+        try {
+            output = delegate.apply(context);
+            return output;
+        } finally {
+            profile.exitTemplate(System.nanoTime() - start, RenderProfile.utf8Length(output));
+        }
+    }
+
+    @Override
+    public String text() {
+        return delegate.text();
+    }
+
+    @Override
+    public String toJavaScript() throws IOException {
+        return delegate.toJavaScript();
+    }
+
+    @Override
+    public <T, S extends TypeSafeTemplate<T>> S as(final Class<S> type) {
+        return delegate.as(type);
+    }
+
+    @Override
+    public <T> TypeSafeTemplate<T> as() {
+        return delegate.as();
+    }
+
+    @Override
+    public List<String> collect(final TagType... tagType) {
+        return delegate.collect(tagType);
+    }
+
+    @Override
+    public String toString() {
+        return delegate.toString();
+    }
+
+    /**
+     * Counts the UTF-8 encoded bytes written by a template.
+     */
+    private static final class CountingWriter extends Writer {
+        private final Writer writer;
+        private long bytes;
+
+        private CountingWriter(final Writer writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void write(final char[] chars, final int offset, final int length) throws IOException {
+            writer.write(chars, offset, length);
+            bytes += RenderProfile.utf8Length(CharBuffer.wrap(chars), offset, offset + length);
+        }
+
+        @Override
+        public void write(final String str, final int offset, final int length) throws IOException {
+            writer.write(str, offset, length);
+            bytes += RenderProfile.utf8Length(str, offset, offset + length);
+        }
+
+        @Override
+        public void write(final int c) throws IOException {
+            writer.write(c);
+            bytes += RenderProfile.utf8Length((char) c);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writer.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+}
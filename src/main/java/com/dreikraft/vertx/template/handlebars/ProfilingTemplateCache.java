@@ -0,0 +1,61 @@
+package com.dreikraft.vertx.template.handlebars;
+
+import com.github.jknack.handlebars.Parser;
+import com.github.jknack.handlebars.Template;
+import com.github.jknack.handlebars.cache.TemplateCache;
+import com.github.jknack.handlebars.io.TemplateSource;
+
+import java.io.IOException;
+
+/**
+ * Wraps the templates returned by a template cache with a {@link ProfilingTemplate}. Handlebars compiles templates
+ * and partials through its template cache, so every template and partial gets profiled by its filename,
+ * e.g. <code>templates/partial.hbs</code>.
+ */
+final class ProfilingTemplateCache implements TemplateCache {
+
+    private final TemplateCache delegate;
+
+    /**
+     * Creates a new ProfilingTemplateCache.
+     *
+     * @param delegate the template cache compiling and caching the templates
+     */
+    ProfilingTemplateCache(final TemplateCache delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void clear() {
+        delegate.clear();
+    }
+
+    @Override
+    public void evict(final TemplateSource source) {
+        delegate.evict(source);
+    }
+
+    /**
+     * Gets the template from the wrapped cache and wraps it with a profiling template.
+     *
+     * @param source a template source
+     * @param parser the parser to compile the source with
+     * @return the profiling template
+     * @throws IOException if the source can not be read
+     */
+    @Override
+    public Template get(final TemplateSource source, final Parser parser) throws IOException {
+        final Template template = delegate.get(source, parser);
+        if (template instanceof ProfilingTemplate)
+            return template;
+        return new ProfilingTemplate(filename(source), template);
+    }
+
+    /**
+     * Partials are loaded with a leading slash, top level templates without. Both are profiled without it.
+     */
+    private static String filename(final TemplateSource source) {
+        final String filename = source.filename();
+        return filename.startsWith("/") ? filename.substring(1) : filename;
+    }
+}
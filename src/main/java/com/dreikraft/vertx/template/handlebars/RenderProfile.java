@@ -0,0 +1,215 @@
+package com.dreikraft.vertx.template.handlebars;
+
+import com.github.jknack.handlebars.Options;
+import com.github.jknack.handlebars.TagType;
+import org.vertx.java.core.json.JsonObject;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Collects the execution profile of a single render. The profile is bound to the rendering thread, templates wrapped
+ * by {@link ProfilingTemplateCache} and helpers wrapped by {@link ProfilingHelper} record into it only while a
+ * profile is active on their thread.
+ */
+public final class RenderProfile {
+
+    private static final ThreadLocal<RenderProfile> CURRENT = new ThreadLocal<>();
+    private static final int MAX_BLOCK_TEXT = 40;
+
+    private final Map<String, Entry> templates = new LinkedHashMap<>();
+    private final Map<String, Entry> helpers = new LinkedHashMap<>();
+    private final Deque<String> templateStack = new ArrayDeque<>();
+    private final long started;
+    private long stopped;
+
+    private RenderProfile() {
+        started = System.nanoTime();
+    }
+
+    /**
+     * Starts a new profile on the current thread.
+     *
+     * @return the started profile
+     */
+    public static RenderProfile start() {
+        final RenderProfile profile = new RenderProfile();
+        CURRENT.set(profile);
+        return profile;
+    }
+
+    /**
+     * Gets the profile active on the current thread.
+     *
+     * @return the active profile or null, if profiling is disabled for the current render
+     */
+    static RenderProfile current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Stops this profile and detaches it from the current thread.
+     */
+    public void stop() {
+        stopped = System.nanoTime();
+        CURRENT.remove();
+    }
+
+    /**
+     * Marks the start of a template or partial. Helpers invoked until {@link #exitTemplate} are attributed to it.
+     *
+     * @param filename the template filename
+     */
+    void enterTemplate(final String filename) {
+        templateStack.push(filename);
+    }
+
+    /**
+     * Records a template or partial execution. Times include nested partials and helpers.
+     *
+     * @param nanos the execution time in nanoseconds
+     * @param bytes the number of bytes written
+     */
+    void exitTemplate(final long nanos, final long bytes) {
+        final Entry entry = entry(templates, templateStack.pop());
+        entry.invocations++;
+        entry.nanos += nanos;
+        entry.bytes += bytes;
+    }
+
+    /**
+     * Records a single helper invocation. Blocks are recorded by helper, template and body text, inline helpers by
+     * helper and the template they are used in. Times include nested helpers and partials.
+     *
+     * @param name       the helper name
+     * @param options    the helper options
+     * @param nanos      the execution time in nanoseconds
+     * @param output     the helper output
+     * @param iterations the number of iterations or 0, if the helper does not iterate
+     */
+    void recordHelper(final String name, final Options options, final long nanos, final CharSequence output,
+                      final long iterations) {
+        final Entry entry = entry(helpers, helperName(name, options));
+        entry.invocations++;
+        entry.nanos += nanos;
+        entry.bytes += utf8Length(output);
+        entry.iterations += iterations;
+    }
+
+    /**
+     * Creates the JSON representation of this profile:
+     * <code>{"timeNanos": ..., "bytes": ..., "templates": {"templates/partial.hbs": {"invocations": ...,
+     * "timeNanos": ..., "bytes": ...}, ...}, "helpers": {"each templates/list.hbs \"{{this}}\"": {"invocations": ...,
+     * "timeNanos": ..., "bytes": ..., "iterations": ...}, ...}}</code>
+     *
+     * @param renderResult the rendered template
+     * @return the profile as JsonObject
+     */
+    public JsonObject toJson(final CharSequence renderResult) {
+        final JsonObject templatesJson = new JsonObject();
+        for (final Map.Entry<String, Entry> template : templates.entrySet()) {
+            final Entry entry = template.getValue();
+            templatesJson.putObject(template.getKey(), new JsonObject()
+                    .putNumber("invocations", entry.invocations)
+                    .putNumber("timeNanos", entry.nanos)
+                    .putNumber("bytes", entry.bytes));
+        }
+        final JsonObject helpersJson = new JsonObject();
+        for (final Map.Entry<String, Entry> helper : helpers.entrySet()) {
+            final Entry entry = helper.getValue();
+            helpersJson.putObject(helper.getKey(), new JsonObject()
+                    .putNumber("invocations", entry.invocations)
+                    .putNumber("timeNanos", entry.nanos)
+                    .putNumber("bytes", entry.bytes)
+                    .putNumber("iterations", entry.iterations));
+        }
+        return new JsonObject()
+                .putNumber("timeNanos", stopped - started)
+                .putNumber("bytes", utf8Length(renderResult))
+                .putObject("templates", templatesJson)
+                .putObject("helpers", helpersJson);
+    }
+
+    /**
+     * Names a helper invocation. A block is named by helper, template and body text, e.g.
+     * <code>each templates/list.hbs "{{this}}"</code>, which stays the same no matter how often the template is
+     * compiled. Identical blocks within the same template are recorded together.
+     */
+    private String helperName(final String name, final Options options) {
+        final String template = templateStack.isEmpty() ? "" : templateStack.peek();
+        if (options.tagType != TagType.SECTION)
+            return name + " " + template;
+        String text = options.fn.text();
+        if (text.length() > MAX_BLOCK_TEXT)
+            text = text.substring(0, MAX_BLOCK_TEXT) + "...";
+        return name + " " + template + " \"" + text + "\"";
+    }
+
+    private static Entry entry(final Map<String, Entry> entries, final String name) {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(name, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Counts the UTF-8 encoded length of the given characters.
+     *
+     * @param chars the characters or null
+     * @return the number of bytes
+     */
+    static long utf8Length(final CharSequence chars) {
+        if (chars == null)
+            return 0;
+        return utf8Length(chars, 0, chars.length());
+    }
+
+    /**
+     * Counts the UTF-8 encoded length of a range of the given characters.
+     *
+     * @param chars the characters
+     * @param start the start index
+     * @param end   the end index (exclusive)
+     * @return the number of bytes
+     */
+    static long utf8Length(final CharSequence chars, final int start, final int end) {
+        long length = 0;
+        for (int i = start; i < end; i++) {
+            length += utf8Length(chars.charAt(i));
+        }
+        return length;
+    }
+
+    /**
+     * Counts the UTF-8 encoded length of a single character. A surrogate pair is encoded with 4 bytes, counted with
+     * its high surrogate.
+     *
+     * @param c the character
+     * @return the number of bytes
+     */
+    static int utf8Length(final char c) {
+        if (c < 0x80)
+            return 1;
+        if (c < 0x800)
+            return 2;
+        if (Character.isHighSurrogate(c))
+            return 4;
+        if (Character.isLowSurrogate(c))
+            return 0;
+        return 3;
+    }
+
+    /**
+     * The aggregated invocations of a single template or helper.
+     */
+    private static final class Entry {
+        private long invocations;
+        private long nanos;
+        private long bytes;
+        private long iterations;
+    }
+}
@@ -0,0 +1,77 @@
+package com.dreikraft.vertx.template.handlebars;
+
+import org.vertx.java.core.shareddata.Shareable;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable, shareable set of compiled templates. A generation is compiled as a whole, including the partials
+ * reachable from its templates, which are pinned to their content at compile time. It is activated by replacing
+ * the active generation in the shared map "handlebar.templates.generations". Renderers hold on to the generation they
+ * started with, therefore a replaced generation is released as soon as the last render using it has finished.
+ */
+public final class TemplateGeneration implements Shareable {
+
+    private final long id;
+    private final Map<String, SharedTemplate> templates;
+    private final Date timestamp;
+
+    /**
+     * Creates a new immutable TemplateGeneration instance.
+     *
+     * @param id        the generation number
+     * @param templates the compiled templates by template location
+     * @param timestamp a timestamp
+     */
+    public TemplateGeneration(final long id, final Map<String, SharedTemplate> templates, final Date timestamp) {
+        this.id = id;
+        this.templates = Collections.unmodifiableMap(new HashMap<>(templates));
+        this.timestamp = new Date(timestamp.getTime());
+    }
+
+    /**
+     * Creates a copy of this generation with a different generation number.
+     *
+     * @param id the generation number
+     * @return a new generation sharing the compiled templates of this generation
+     */
+    public TemplateGeneration withId(final long id) {
+        return new TemplateGeneration(id, templates, timestamp);
+    }
+
+    /**
+     * Gets the generation number.
+     * @return the generation number
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Gets the compiled template for the given location.
+     * @param templateLocation the location of the template in the classpath
+     * @return the compiled template or null, if the template is not part of this generation
+     */
+    public SharedTemplate getTemplate(final String templateLocation) {
+        return templates.get(templateLocation);
+    }
+
+    /**
+     * Gets the number of templates in this generation.
+     * @return the number of templates
+     */
+    public int size() {
+        return templates.size();
+    }
+
+    /**
+     * Gets the timestamp when the generation was compiled.
+     * @return a timestamp
+     */
+    public Date getTimestamp() {
+        return new Date(timestamp.getTime());
+    }
+}
@@ -3,17 +3,21 @@ package com.dreikraft.vertx.template;
 import com.dreikraft.vertx.template.handlebars.HandlebarsCompilerVerticle;
 import com.dreikraft.vertx.template.handlebars.HandlebarsRendererVerticle;
 import com.dreikraft.vertx.template.handlebars.SharedTemplate;
+import com.dreikraft.vertx.template.handlebars.TemplateGeneration;
 import org.junit.Test;
 import org.vertx.java.core.AsyncResult;
 import org.vertx.java.core.AsyncResultHandler;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.eventbus.ReplyException;
+import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
 import org.vertx.testtools.TestVerticle;
 import org.vertx.testtools.VertxAssert;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -25,6 +29,7 @@ import java.nio.file.attribute.FileTime;
 public class HandlebarsModuleTest extends TestVerticle {
 
     private static final String HELLO_WORLD = "hello world!";
+    private static final String RELEASE_WORLD = "release world!";
 
     /**
      * Initialize the vertx container for testing.
@@ -198,4 +203,431 @@ public class HandlebarsModuleTest extends TestVerticle {
                 }
         );
     }
+
+    /**
+     * Tests compiling, activating and rendering a template generation.
+     */
+    @Test
+    public void testCompileGeneration() {
+
+        final String templateLocation = "templates/release.hbs";
+        vertx.eventBus().send(HandlebarsCompilerVerticle.ADDRESS_COMPILE_GENERATION,
+                new JsonObject().putArray(HandlebarsRendererVerticle.FIELD_TEMPLATE_LOCATIONS,
+                        new JsonArray().addString(templateLocation)), new Handler<Message<JsonObject>>() {
+                    @Override
+                    public void handle(final Message<JsonObject> compileResult) {
+                        try {
+                            VertxAssert.assertEquals("ok", compileResult.body().getString("status"));
+                            final Number generationId = compileResult.body().getNumber(
+                                    HandlebarsRendererVerticle.FIELD_GENERATION);
+                            final TemplateGeneration generation = (TemplateGeneration) vertx.sharedData().getMap(
+                                    HandlebarsRendererVerticle.HANDLEBAR_TEMPLATES_GENERATIONS).get(
+                                    HandlebarsRendererVerticle.ACTIVE_GENERATION);
+                            VertxAssert.assertEquals(generationId.longValue(), generation.getId());
+                            VertxAssert.assertNotNull(generation.getTemplate(templateLocation));
+                            final JsonObject data = new JsonObject().putString("text", "world");
+                            final JsonObject msg = new JsonObject().putString("templateLocation", templateLocation)
+                                    .putObject("data", data);
+
+                            vertx.eventBus().send(HandlebarsRendererVerticle.ADDRESS_RENDER_FILE, msg,
+                                    new Handler<Message<JsonObject>>() {
+                                        @Override
+                                        public void handle(final Message<JsonObject> renderResult) {
+                                            try {
+                                                VertxAssert.assertEquals("ok", renderResult.body().getString("status"));
+                                                VertxAssert.assertEquals(RELEASE_WORLD, renderResult.body().getString
+                                                        (HandlebarsRendererVerticle.FIELD_RENDER_RESULT));
+                                                VertxAssert.assertEquals(generationId.longValue(), renderResult.body()
+                                                        .getNumber(HandlebarsRendererVerticle.FIELD_GENERATION)
+                                                        .longValue());
+                                            } catch (RuntimeException ex) {
+                                                VertxAssert.fail(ex.getMessage());
+                                            }
+                                            VertxAssert.testComplete();
+                                        }
+                                    }
+                            );
+                        } catch (RuntimeException ex) {
+                            VertxAssert.fail(ex.getMessage());
+                            VertxAssert.testComplete();
+                        }
+                    }
+                }
+        );
+    }
+
+    /**
+     * Tests that a template generation with a missing template is rejected and leaves the active generation untouched.
+     */
+    @Test
+    public void testCompileGenerationFailed() {
+
+        compileGeneration(new JsonArray().addString("templates/release.hbs"), new Handler<Message<JsonObject>>() {
+            @Override
+            public void handle(final Message<JsonObject> compileResult) {
+                try {
+                    VertxAssert.assertEquals("ok", compileResult.body().getString("status"));
+                    final TemplateGeneration active = activeGeneration();
+                    vertx.eventBus().sendWithTimeout(HandlebarsCompilerVerticle.ADDRESS_COMPILE_GENERATION,
+                            new JsonObject().putArray(HandlebarsRendererVerticle.FIELD_TEMPLATE_LOCATIONS,
+                                    new JsonArray().addString("templates/release.hbs")
+                                            .addString("templates/missing.hbs")),
+                            5000, new AsyncResultHandler<Message<JsonObject>>() {
+                                @Override
+                                public void handle(final AsyncResult<Message<JsonObject>> failedResult) {
+                                    try {
+                                        VertxAssert.assertTrue(failedResult.failed());
+                                        VertxAssert.assertEquals(HandlebarsCompilerVerticle.ERR_CODE_BASE,
+                                                ((ReplyException) failedResult.cause()).failureCode());
+                                        VertxAssert.assertSame(active, activeGeneration());
+                                    } catch (RuntimeException ex) {
+                                        VertxAssert.fail(ex.getMessage());
+                                    }
+                                    VertxAssert.testComplete();
+                                }
+                            }
+                    );
+                } catch (RuntimeException ex) {
+                    VertxAssert.fail(ex.getMessage());
+                    VertxAssert.testComplete();
+                }
+            }
+        });
+    }
+
+    /**
+     * Tests that a template generation with a missing partial is rejected and leaves the active generation untouched.
+     */
+    @Test
+    public void testCompileGenerationMissingPartial() {
+
+        final TemplateGeneration active = activeGeneration();
+        vertx.eventBus().sendWithTimeout(HandlebarsCompilerVerticle.ADDRESS_COMPILE_GENERATION,
+                new JsonObject().putArray(HandlebarsRendererVerticle.FIELD_TEMPLATE_LOCATIONS,
+                        new JsonArray().addString("templates/broken.hbs")),
+                5000, new AsyncResultHandler<Message<JsonObject>>() {
+                    @Override
+                    public void handle(final AsyncResult<Message<JsonObject>> compileResult) {
+                        try {
+                            VertxAssert.assertTrue(compileResult.failed());
+                            VertxAssert.assertSame(active, activeGeneration());
+                        } catch (RuntimeException ex) {
+                            VertxAssert.fail(ex.getMessage());
+                        }
+                        VertxAssert.testComplete();
+                    }
+                }
+        );
+    }
+
+    /**
+     * Tests that activating another generation increments the generation number.
+     */
+    @Test
+    public void testCompileGenerationIncrement() {
+
+        final JsonArray templateLocations = new JsonArray().addString("templates/release.hbs");
+        compileGeneration(templateLocations, new Handler<Message<JsonObject>>() {
+            @Override
+            public void handle(final Message<JsonObject> firstResult) {
+                try {
+                    VertxAssert.assertEquals("ok", firstResult.body().getString("status"));
+                    final long firstId = firstResult.body().getNumber(HandlebarsRendererVerticle.FIELD_GENERATION)
+                            .longValue();
+                    compileGeneration(templateLocations, new Handler<Message<JsonObject>>() {
+                        @Override
+                        public void handle(final Message<JsonObject> secondResult) {
+                            try {
+                                VertxAssert.assertEquals("ok", secondResult.body().getString("status"));
+                                VertxAssert.assertEquals(firstId + 1, secondResult.body().getNumber(
+                                        HandlebarsRendererVerticle.FIELD_GENERATION).longValue());
+                                VertxAssert.assertEquals(firstId + 1, activeGeneration().getId());
+                            } catch (RuntimeException ex) {
+                                VertxAssert.fail(ex.getMessage());
+                            }
+                            VertxAssert.testComplete();
+                        }
+                    });
+                } catch (RuntimeException ex) {
+                    VertxAssert.fail(ex.getMessage());
+                    VertxAssert.testComplete();
+                }
+            }
+        });
+    }
+
+    /**
+     * Tests that a generation keeps rendering the partials it was compiled with, even if a partial changes afterwards.
+     * The template and partial are written to unique files next to the test templates, which are deleted on exit.
+     */
+    @Test
+    public void testCompileGenerationPinsPartials() {
+
+        try {
+            final Path templatesDir = Paths.get(Thread.currentThread().getContextClassLoader()
+                    .getResource("templates/hello.hbs").toURI()).getParent();
+            final String name = "pinned" + System.nanoTime();
+            final Path templatePath = templatesDir.resolve(name + ".hbs");
+            final Path partialPath = templatesDir.resolve(name + "Partial.hbs");
+            templatePath.toFile().deleteOnExit();
+            partialPath.toFile().deleteOnExit();
+            Files.write(templatePath, ("pinned {{> templates/" + name + "Partial}}!").getBytes(StandardCharsets.UTF_8));
+            Files.write(partialPath, "{{text}}".getBytes(StandardCharsets.UTF_8));
+
+            final String templateLocation = "templates/" + name + ".hbs";
+            compileGeneration(new JsonArray().addString(templateLocation), new Handler<Message<JsonObject>>() {
+                @Override
+                public void handle(final Message<JsonObject> compileResult) {
+                    try {
+                        VertxAssert.assertEquals("ok", compileResult.body().getString("status"));
+                        Files.write(partialPath, "NEW-RELEASE".getBytes(StandardCharsets.UTF_8));
+                        final JsonObject data = new JsonObject().putString("text", "world");
+                        final JsonObject msg = new JsonObject().putString("templateLocation", templateLocation)
+                                .putObject("data", data);
+
+                        vertx.eventBus().send(HandlebarsRendererVerticle.ADDRESS_RENDER_FILE, msg,
+                                new Handler<Message<JsonObject>>() {
+                                    @Override
+                                    public void handle(final Message<JsonObject> renderResult) {
+                                        try {
+                                            VertxAssert.assertEquals("ok", renderResult.body().getString("status"));
+                                            VertxAssert.assertEquals("pinned world!", renderResult.body().getString(
+                                                    HandlebarsRendererVerticle.FIELD_RENDER_RESULT));
+                                        } catch (RuntimeException ex) {
+                                            VertxAssert.fail(ex.getMessage());
+                                        }
+                                        VertxAssert.testComplete();
+                                    }
+                                }
+                        );
+                    } catch (RuntimeException | IOException ex) {
+                        VertxAssert.fail(ex.getMessage());
+                        VertxAssert.testComplete();
+                    }
+                }
+            });
+        } catch (RuntimeException | IOException | URISyntaxException ex) {
+            VertxAssert.fail(ex.getMessage());
+            VertxAssert.testComplete();
+        }
+    }
+
+    /**
+     * Tests that partials in comments are ignored and partials after a delimiter change are part of the generation.
+     */
+    @Test
+    public void testCompileGenerationCommentsAndDelimiters() {
+
+        final String templateLocation = "templates/commented.hbs";
+        compileGeneration(new JsonArray().addString(templateLocation), new Handler<Message<JsonObject>>() {
+            @Override
+            public void handle(final Message<JsonObject> compileResult) {
+                try {
+                    VertxAssert.assertEquals("ok", compileResult.body().getString("status"));
+                    final JsonObject data = new JsonObject().putString("text", "world");
+                    final JsonObject msg = new JsonObject().putString("templateLocation", templateLocation)
+                            .putObject("data", data);
+
+                    vertx.eventBus().send(HandlebarsRendererVerticle.ADDRESS_RENDER_FILE, msg,
+                            new Handler<Message<JsonObject>>() {
+                                @Override
+                                public void handle(final Message<JsonObject> renderResult) {
+                                    try {
+                                        VertxAssert.assertEquals("ok", renderResult.body().getString("status"));
+                                        VertxAssert.assertEquals("commented world world!", renderResult.body()
+                                                .getString(HandlebarsRendererVerticle.FIELD_RENDER_RESULT));
+                                    } catch (RuntimeException ex) {
+                                        VertxAssert.fail(ex.getMessage());
+                                    }
+                                    VertxAssert.testComplete();
+                                }
+                            }
+                    );
+                } catch (RuntimeException ex) {
+                    VertxAssert.fail(ex.getMessage());
+                    VertxAssert.testComplete();
+                }
+            }
+        });
+    }
+
+    private void compileGeneration(final JsonArray templateLocations, final Handler<Message<JsonObject>> handler) {
+        vertx.eventBus().send(HandlebarsCompilerVerticle.ADDRESS_COMPILE_GENERATION,
+                new JsonObject().putArray(HandlebarsRendererVerticle.FIELD_TEMPLATE_LOCATIONS, templateLocations),
+                handler);
+    }
+
+    private TemplateGeneration activeGeneration() {
+        return (TemplateGeneration) vertx.sharedData().getMap(HandlebarsRendererVerticle
+                .HANDLEBAR_TEMPLATES_GENERATIONS).get(HandlebarsRendererVerticle.ACTIVE_GENERATION);
+    }
+
+    /**
+     * Tests profiling of a render requested by the render message.
+     */
+    @Test
+    public void testRenderProfile() {
+
+        final JsonObject data = new JsonObject().putArray("items", new JsonArray().addString("a").addString("b")
+                .addString("c"));
+        final JsonObject msg = new JsonObject().putString("templateLocation", "templates/list.hbs")
+                .putObject("data", data).putBoolean(HandlebarsRendererVerticle.FIELD_PROFILE, true);
+
+        vertx.eventBus().send(HandlebarsRendererVerticle.ADDRESS_RENDER_FILE, msg,
+                new Handler<Message<JsonObject>>() {
+                    @Override
+                    public void handle(final Message<JsonObject> renderResult) {
+                        try {
+                            VertxAssert.assertEquals("ok", renderResult.body().getString("status"));
+                            VertxAssert.assertEquals("abc", renderResult.body().getString(
+                                    HandlebarsRendererVerticle.FIELD_RENDER_RESULT));
+                            final JsonObject profile = renderResult.body().getObject(
+                                    HandlebarsRendererVerticle.FIELD_PROFILE);
+                            VertxAssert.assertEquals(3, profile.getNumber("bytes").intValue());
+                            VertxAssert.assertEquals(3, profile.getObject("templates").getObject("templates/list.hbs")
+                                    .getNumber("bytes").intValue());
+                            final JsonObject each = profile.getObject("helpers").getObject(
+                                    "each templates/list.hbs \"{{this}}\"");
+                            VertxAssert.assertEquals(1, each.getNumber("invocations").intValue());
+                            VertxAssert.assertEquals(3, each.getNumber("iterations").intValue());
+                            VertxAssert.assertEquals(3, each.getNumber("bytes").intValue());
+                        } catch (RuntimeException ex) {
+                            VertxAssert.fail(ex.getMessage());
+                        }
+                        VertxAssert.testComplete();
+                    }
+                }
+        );
+    }
+
+    /**
+     * Tests that the profile attributes separate blocks and partials.
+     */
+    @Test
+    public void testRenderProfileBlocksAndPartials() {
+
+        final JsonObject data = new JsonObject().putString("text", "world")
+                .putArray("small", new JsonArray().addString("a"))
+                .putArray("big", new JsonArray().addString("1").addString("2").addString("3").addString("4")
+                        .addString("5"));
+        final JsonObject msg = new JsonObject().putString("templateLocation", "templates/blocks.hbs")
+                .putObject("data", data).putBoolean(HandlebarsRendererVerticle.FIELD_PROFILE, true);
+
+        vertx.eventBus().send(HandlebarsRendererVerticle.ADDRESS_RENDER_FILE, msg,
+                new Handler<Message<JsonObject>>() {
+                    @Override
+                    public void handle(final Message<JsonObject> renderResult) {
+                        try {
+                            VertxAssert.assertEquals("ok", renderResult.body().getString("status"));
+                            VertxAssert.assertEquals("a|<1><2><3><4><5>|world", renderResult.body().getString(
+                                    HandlebarsRendererVerticle.FIELD_RENDER_RESULT));
+                            final JsonObject profile = renderResult.body().getObject(
+                                    HandlebarsRendererVerticle.FIELD_PROFILE);
+                            final JsonObject partial = profile.getObject("templates").getObject(
+                                    "templates/partial.hbs");
+                            VertxAssert.assertEquals(1, partial.getNumber("invocations").intValue());
+                            VertxAssert.assertEquals(5, partial.getNumber("bytes").intValue());
+                            final JsonObject helpers = profile.getObject("helpers");
+                            final JsonObject small = helpers.getObject("each templates/blocks.hbs \"{{this}}\"");
+                            VertxAssert.assertEquals(1, small.getNumber("iterations").intValue());
+                            VertxAssert.assertEquals(1, small.getNumber("bytes").intValue());
+                            final JsonObject big = helpers.getObject("each templates/blocks.hbs \"<{{this}}>\"");
+                            VertxAssert.assertEquals(5, big.getNumber("iterations").intValue());
+                            VertxAssert.assertEquals(15, big.getNumber("bytes").intValue());
+                        } catch (RuntimeException ex) {
+                            VertxAssert.fail(ex.getMessage());
+                        }
+                        VertxAssert.testComplete();
+                    }
+                }
+        );
+    }
+
+    /**
+     * Tests that a block within a partial is recorded as a single helper, although the partial is compiled again on
+     * every call.
+     */
+    @Test
+    public void testRenderProfileBlockInPartialLoop() {
+
+        final int rows = 100;
+        final JsonArray items = new JsonArray();
+        for (int i = 0; i < rows; i++) {
+            items.addBoolean(true);
+        }
+        final JsonObject msg = new JsonObject().putString("templateLocation", "templates/rows.hbs")
+                .putObject("data", new JsonObject().putArray("items", items))
+                .putBoolean(HandlebarsRendererVerticle.FIELD_PROFILE, true);
+
+        vertx.eventBus().send(HandlebarsRendererVerticle.ADDRESS_RENDER_FILE, msg,
+                new Handler<Message<JsonObject>>() {
+                    @Override
+                    public void handle(final Message<JsonObject> renderResult) {
+                        try {
+                            VertxAssert.assertEquals("ok", renderResult.body().getString("status"));
+                            VertxAssert.assertNull(renderResult.body().getNumber(
+                                    HandlebarsRendererVerticle.FIELD_GENERATION));
+                            final JsonObject profile = renderResult.body().getObject(
+                                    HandlebarsRendererVerticle.FIELD_PROFILE);
+                            VertxAssert.assertEquals(rows, profile.getObject("templates").getObject(
+                                    "templates/row.hbs").getNumber("invocations").intValue());
+                            final JsonObject helpers = profile.getObject("helpers");
+                            VertxAssert.assertEquals(2, helpers.size());
+                            final JsonObject block = helpers.getObject("if templates/row.hbs \"x\"");
+                            VertxAssert.assertEquals(rows, block.getNumber("invocations").intValue());
+                            VertxAssert.assertEquals(rows, block.getNumber("bytes").intValue());
+                        } catch (RuntimeException ex) {
+                            VertxAssert.fail(ex.getMessage());
+                        }
+                        VertxAssert.testComplete();
+                    }
+                }
+        );
+    }
+
+    /**
+     * Tests that a render neither returns nor publishes a profile, if it is not requested and sampling is disabled.
+     */
+    @Test
+    public void testRenderNotProfiled() {
+
+        final Handler<Message<JsonObject>> profileHandler = new Handler<Message<JsonObject>>() {
+            @Override
+            public void handle(final Message<JsonObject> profileMsg) {
+                VertxAssert.fail("unexpected profile: " + profileMsg.body());
+            }
+        };
+        vertx.eventBus().registerHandler(HandlebarsRendererVerticle.ADDRESS_PROFILE, profileHandler);
+
+        final JsonObject data = new JsonObject().putString("text", "world");
+        final JsonObject msg = new JsonObject().putString("templateLocation", "templates/hello.hbs")
+                .putObject("data", data);
+        vertx.eventBus().send(HandlebarsRendererVerticle.ADDRESS_RENDER_FILE, msg,
+                new Handler<Message<JsonObject>>() {
+                    @Override
+                    public void handle(final Message<JsonObject> renderResult) {
+                        try {
+                            VertxAssert.assertEquals("ok", renderResult.body().getString("status"));
+                            VertxAssert.assertEquals(HELLO_WORLD, renderResult.body().getString(
+                                    HandlebarsRendererVerticle.FIELD_RENDER_RESULT));
+                            VertxAssert.assertNull(renderResult.body().getObject(
+                                    HandlebarsRendererVerticle.FIELD_PROFILE));
+                        } catch (RuntimeException ex) {
+                            VertxAssert.fail(ex.getMessage());
+                            VertxAssert.testComplete();
+                            return;
+                        }
+                        // give a wrongly published profile the time to arrive
+                        vertx.setTimer(200, new Handler<Long>() {
+                            @Override
+                            public void handle(final Long timerId) {
+                                vertx.eventBus().unregisterHandler(HandlebarsRendererVerticle.ADDRESS_PROFILE,
+                                        profileHandler);
+                                VertxAssert.testComplete();
+                            }
+                        });
+                    }
+                }
+        );
+    }
 }
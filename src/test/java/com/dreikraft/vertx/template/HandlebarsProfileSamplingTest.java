@@ -0,0 +1,97 @@
+package com.dreikraft.vertx.template;
+
+import com.dreikraft.vertx.template.handlebars.HandlebarsRendererVerticle;
+import org.junit.Test;
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.AsyncResultHandler;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.testtools.TestVerticle;
+import org.vertx.testtools.VertxAssert;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Intergration tests for sampled render profiles.
+ */
+public class HandlebarsProfileSamplingTest extends TestVerticle {
+
+    private static final String HELLO_WORLD = "hello world!";
+
+    /**
+     * Initialize the vertx container for testing, every render gets sampled.
+     */
+    @Override
+    public void start() {
+
+        initialize();
+
+        container.logger().info("starting HandlebarsRendererVerticle sampling tests ...");
+        final JsonObject config = new JsonObject().putNumber(HandlebarsRendererVerticle.CONFIG_PROFILE_SAMPLE_RATE, 1.0);
+        container.deployModule(System.getProperty("vertx.modulename"), config, new AsyncResultHandler<String>() {
+            @Override
+            public void handle(AsyncResult<String> asyncResult) {
+                container.logger().info("started HandlebarsRendererVerticle sampling tests");
+                if (asyncResult.failed()) {
+                    container.logger().error(asyncResult.cause().getMessage(), asyncResult.cause());
+                }
+                VertxAssert.assertTrue(asyncResult.succeeded());
+                VertxAssert.assertNotNull("deploymentID should not be null", asyncResult.result());
+                startTests();
+            }
+        });
+    }
+
+    /**
+     * Tests that sampled renders publish their profile and do not return it in the reply.
+     */
+    @Test
+    public void testRenderProfileSampled() {
+
+        final String templateLocation = "templates/hello.hbs";
+        final AtomicInteger pending = new AtomicInteger(2);
+        vertx.eventBus().registerHandler(HandlebarsRendererVerticle.ADDRESS_PROFILE,
+                new Handler<Message<JsonObject>>() {
+                    @Override
+                    public void handle(final Message<JsonObject> profileMsg) {
+                        try {
+                            VertxAssert.assertEquals(templateLocation, profileMsg.body().getString(
+                                    HandlebarsRendererVerticle.FIELD_TEMPLATE_LOCATION));
+                            VertxAssert.assertEquals(HELLO_WORLD.length(), profileMsg.body().getNumber("bytes")
+                                    .intValue());
+                            VertxAssert.assertNotNull(profileMsg.body().getObject("templates").getObject(
+                                    "templates/hello.hbs"));
+                            VertxAssert.assertNotNull(profileMsg.body().getObject("templates").getObject(
+                                    "templates/partial.hbs"));
+                        } catch (RuntimeException ex) {
+                            VertxAssert.fail(ex.getMessage());
+                        }
+                        if (pending.decrementAndGet() == 0)
+                            VertxAssert.testComplete();
+                    }
+                });
+
+        final JsonObject data = new JsonObject().putString("text", "world");
+        final JsonObject msg = new JsonObject().putString("templateLocation", templateLocation)
+                .putObject("data", data);
+        vertx.eventBus().send(HandlebarsRendererVerticle.ADDRESS_RENDER_FILE, msg,
+                new Handler<Message<JsonObject>>() {
+                    @Override
+                    public void handle(final Message<JsonObject> renderResult) {
+                        try {
+                            VertxAssert.assertEquals("ok", renderResult.body().getString("status"));
+                            VertxAssert.assertEquals(HELLO_WORLD, renderResult.body().getString(
+                                    HandlebarsRendererVerticle.FIELD_RENDER_RESULT));
+                            VertxAssert.assertNull(renderResult.body().getObject(
+                                    HandlebarsRendererVerticle.FIELD_PROFILE));
+                        } catch (RuntimeException ex) {
+                            VertxAssert.fail(ex.getMessage());
+                        }
+                        if (pending.decrementAndGet() == 0)
+                            VertxAssert.testComplete();
+                    }
+                }
+        );
+    }
+}